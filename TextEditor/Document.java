@@ -0,0 +1,35 @@
+import java.io.File;
+
+// One open file of the Workspace: its Text and the view state the shared Viewer shows it with.
+// While another document is active the text may be evicted to a snapshot (see Workspace).
+public class Document {
+    public final String path;
+    public final Text text;
+
+    // View state, saved when the tab is left and restored when it is selected again
+    public int caretPosition = 0;
+    public int selectionStart = -1;
+    public int selectionEnd = -1;
+    public int scrollValue = 0;
+    public boolean wordWrap = false;
+    public Tokenizer tokenizer;
+
+    // Appends text written to the file, null when not following. A followed document is
+    // never evicted, since its text keeps growing in the background.
+    public FileFollower follower;
+
+    // Heap the text used when it was last in memory, and when it was last active (for LRU)
+    long memory;
+    long lastUsed;
+
+    public Document(String path, Text text) {
+        this.path = path;
+        this.text = text;
+        this.tokenizer = Tokenizer.forFile(path);
+        this.memory = text.estimatedMemory();
+    }
+
+    public String getName() {
+        return new File(path).getName();
+    }
+}
@@ -4,8 +4,6 @@ import java.awt.event.*;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 
 public class Editor {
     private static int caretPosition = 0;
@@ -19,6 +17,12 @@ public class Editor {
     private static Viewer viewer;    // Declare viewer as an instance variable
     private static JScrollBar scrollBar;  // Declare scrollBar as an instance variable
 
+    private static JFrame frame;
+    private static Workspace workspace;       // The open documents, one tab each
+    private static Document document;         // The document shown in the viewer
+    private static JCheckBoxMenuItem wrapItem;
+    private static JCheckBoxMenuItem followItem;
+
     public static void main(String[] arg) {
         if (arg.length < 1) {
             System.out.println("-- file name missing");
@@ -30,11 +34,15 @@ public class Editor {
         scrollBar = new JScrollBar(Adjustable.VERTICAL, 0, 0, 0, 1000);
         viewer = new Viewer(text, scrollBar);
 
+        // Every document is shown in the same viewer; the tabs switch between them
+        workspace = new Workspace(Editor::showDocument);
+
         JPanel panel = new JPanel(new BorderLayout());
+        panel.add("North", workspace.getTabs());
         panel.add("Center", viewer);
         panel.add("East", scrollBar);
 
-        JFrame frame = new JFrame(path);
+        frame = new JFrame(path);
         frame.setSize(700, 800);
         frame.setContentPane(panel);
 
@@ -50,8 +58,12 @@ public class Editor {
         JMenuItem saveItem = new JMenuItem("Save");
         saveItem.addActionListener(e -> saveFile(frame));
 
+        JMenuItem closeItem = new JMenuItem("Close");
+        closeItem.addActionListener(e -> workspace.close(document));
+
         fileMenu.add(openItem);
         fileMenu.add(saveItem);
+        fileMenu.add(closeItem);
 
         // Edit Menu
         JMenu editMenu = new JMenu("Edit");
@@ -59,11 +71,12 @@ public class Editor {
         JMenuItem cutItem = new JMenuItem("Cut");
         cutItem.addActionListener(e -> {
             if (viewer.selectionStart >= 0 && viewer.selectionEnd > viewer.selectionStart) {
+                int oldLineCount = text.getLineCount();
                 text.cut(viewer.selectionStart, viewer.selectionEnd);
                 caretPosition = viewer.selectionStart;
+                viewer.textChanged(caretPosition, oldLineCount);
                 viewer.setSelection(-1, -1);
                 viewer.setCaretPosition(caretPosition);
-                viewer.repaint();
             }
         });
 
@@ -79,11 +92,12 @@ public class Editor {
             int pastePosition = (viewer.selectionStart >= 0 && viewer.selectionEnd > viewer.selectionStart)
                     ? viewer.selectionStart
                     : caretPosition;
+            int oldLineCount = text.getLineCount();
             text.paste(pastePosition);
             caretPosition = pastePosition + Text.clipboard.size();
+            viewer.textChanged(pastePosition, oldLineCount);
             viewer.setSelection(-1, -1);
             viewer.setCaretPosition(caretPosition);
-            viewer.repaint();
         });
 
         JMenuItem findItem = new JMenuItem("Find");
@@ -131,9 +145,38 @@ public class Editor {
         formatMenu.add(boldItem);
         formatMenu.add(italicItem);
 
+        // View Menu
+        JMenu viewMenu = new JMenu("View");
+        wrapItem = new JCheckBoxMenuItem("Word Wrap");
+        wrapItem.addActionListener(e -> viewer.setWordWrap(wrapItem.isSelected()));
+        viewMenu.add(wrapItem);
+
+        followItem = new JCheckBoxMenuItem("Follow File");
+        followItem.addActionListener(e -> {
+            if (followItem.isSelected()) startFollowing();
+            else stopFollowing();
+        });
+        viewMenu.add(followItem);
+
+        JMenu syntaxMenu = new JMenu("Syntax");
+        JMenuItem noSyntaxItem = new JMenuItem("None");
+        noSyntaxItem.addActionListener(e -> setSyntax(null));
+        JMenuItem javaItem = new JMenuItem("Java");
+        javaItem.addActionListener(e -> setSyntax(new JavaTokenizer()));
+        JMenuItem jsonItem = new JMenuItem("JSON");
+        jsonItem.addActionListener(e -> setSyntax(new JsonTokenizer()));
+        JMenuItem logItem = new JMenuItem("Log");
+        logItem.addActionListener(e -> setSyntax(new LogTokenizer()));
+        syntaxMenu.add(noSyntaxItem);
+        syntaxMenu.add(javaItem);
+        syntaxMenu.add(jsonItem);
+        syntaxMenu.add(logItem);
+        viewMenu.add(syntaxMenu);
+
         menuBar.add(fileMenu);
         menuBar.add(editMenu);
         menuBar.add(formatMenu);
+        menuBar.add(viewMenu);
         frame.setJMenuBar(menuBar);
 
 
@@ -153,7 +196,9 @@ public class Editor {
         frame.addKeyListener(new KeyAdapter() {
             @Override
             public void keyTyped(KeyEvent e) {
+                int oldCaretPosition = caretPosition;
                 char keyChar = e.getKeyChar();
+                int oldLineCount = text.getLineCount();
                 if (keyChar == KeyEvent.VK_BACK_SPACE) {
                     if (viewer.selectionStart >= 0 && viewer.selectionEnd > viewer.selectionStart) {
                         text.delete(viewer.selectionStart, viewer.selectionEnd - viewer.selectionStart);
@@ -163,20 +208,23 @@ public class Editor {
                         caretPosition--;
                     }
                 } else if (keyChar == KeyEvent.VK_ENTER) {
-                    Font currentFont = new Font("Monospaced", Font.PLAIN, 14);
+                    Font currentFont = Text.DEFAULT_FONT;
                     text.insert(caretPosition, "\n", currentFont);
                     caretPosition++;
                 } else if (!Character.isISOControl(keyChar)) {
-                    Font currentFont = new Font("Monospaced", Font.PLAIN, 14);
+                    Font currentFont = Text.DEFAULT_FONT;
                     text.insert(caretPosition, String.valueOf(keyChar), currentFont);
                     caretPosition++;
                 }
 
+                // Only the edited line (or, for line breaks, everything below it) is redrawn.
+                // The viewer must see the edit before it maps offsets to rows again.
+                viewer.textChanged(Math.min(caretPosition, oldCaretPosition), oldLineCount);
+
                 // Clear selection after any typing
                 selectionAnchor = -1;
                 viewer.setSelection(-1, -1);
                 viewer.setCaretPosition(caretPosition);
-                viewer.repaint();
             }
 
             @Override
@@ -236,7 +284,6 @@ public class Editor {
                 }
 
                 viewer.setCaretPosition(caretPosition);
-                viewer.repaint();
             }
 
             @Override
@@ -254,29 +301,8 @@ public class Editor {
 
             @Override
             public void mousePressed(MouseEvent e) {
-                int y = e.getY();
-                int x = e.getX();
-                int lineHeight = 20;
-
-                int clickedLine = (scrollBar.getValue() / lineHeight) + (y / lineHeight);
-                java.util.List<Text.StyledChar> line = text.getLine(clickedLine);
-                int width = 10;
-                int charOffset = 0;
-
-                while (charOffset < line.size()) {
-                    FontMetrics fm = viewer.getFontMetrics(line.get(charOffset).font);
-                    int charWidth = fm.charWidth(line.get(charOffset).character);
-                    if (width + charWidth / 2 >= x) break;
-                    width += charWidth;
-                    charOffset++;
-                }
-
-                int newCaret = 0;
-                for (int i = 0; i < clickedLine; i++) {
-                    newCaret += text.getLine(i).size() + 1;
-                }
-                newCaret += charOffset;
-                caretPosition = Math.min(newCaret, text.getLength());
+                // The viewer knows how rows map to text, also when word wrap is on
+                caretPosition = viewer.getOffsetAt(e.getX(), e.getY());
 
                 long now = System.currentTimeMillis();
                 if (now - lastClickTime < 400) { // double-click
@@ -290,28 +316,97 @@ public class Editor {
                 }
 
                 viewer.setCaretPosition(caretPosition);
-                viewer.repaint();
                 lastClickTime = now;
             }
         });
 
+        workspace.add(new Document(new File(path).getAbsolutePath(), text));
+
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setVisible(true);
     }
 
+    // Shows a document in the viewer; the view state of the one it replaces is kept with it
+    private static void showDocument(Document next) {
+        if (document != null) {
+            document.caretPosition = caretPosition;
+            document.selectionStart = viewer.selectionStart;
+            document.selectionEnd = viewer.selectionEnd;
+            document.scrollValue = scrollBar.getValue();
+            document.wordWrap = viewer.isWordWrap();
+        }
+        document = next;
+        text = next.text;
+        caretPosition = next.caretPosition;
+        selectionAnchor = -1;
+
+        viewer.setText(text, next.tokenizer);
+        viewer.setWordWrap(next.wordWrap);
+        viewer.setSelection(next.selectionStart, next.selectionEnd);
+        viewer.setCaretPosition(caretPosition);
+        scrollBar.setValue(next.scrollValue);
+        wrapItem.setSelected(next.wordWrap);
+        followItem.setSelected(next.follower != null);
+        frame.setTitle(next.path);
+    }
+
+    private static void setSyntax(Tokenizer tokenizer) {
+        document.tokenizer = tokenizer;
+        viewer.setTokenizer(tokenizer);
+    }
+
     private static void openFile(JFrame frame) {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Open Text File");
         int result = fileChooser.showOpenDialog(frame);
         if (result == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
-            String path = selectedFile.getAbsolutePath();
-            text = new Text(path);
-            viewer.setText(text); // Add a setter method in Viewer to update the text
-            viewer.repaint();
-            caretPosition = 0;
-            viewer.setCaretPosition(caretPosition);
-            viewer.setSelection(-1, -1);
+            workspace.open(selectedFile.getAbsolutePath()); // shown in a new tab
+        }
+    }
+
+    // Follow mode: only bytes appended after the ones already read (when loading, or by an
+    // earlier follower) are read, so nothing written in between is skipped.
+    // Each document has its own follower, which keeps running while another tab is shown.
+    private static void startFollowing() {
+        Document followed = document;
+        long offset = text.getFileOffset();
+        followed.follower = new FileFollower(followed.path, text.getEncoding().charset,
+                appended -> appendFollowed(followed, appended), () -> followFailed(followed));
+        followed.follower.start(offset);
+    }
+
+    private static void stopFollowing() {
+        if (document.follower != null) {
+            text.setFileOffset(document.follower.getPosition());
+            document.follower.stop();
+            document.follower = null;
+        }
+    }
+
+    // The follower stopped on a read error; the document may be evicted again
+    private static void followFailed(Document followed) {
+        if (followed.follower == null) return;
+        followed.text.setFileOffset(followed.follower.getPosition());
+        followed.follower = null;
+        if (followed == document) followItem.setSelected(false);
+    }
+
+    private static void appendFollowed(Document followed, String appended) {
+        Text followedText = followed.text;
+        int oldLineCount = followedText.getLineCount();
+        int pos = followedText.getLength();
+        if (followed != document) {
+            followedText.append(appended, Text.DEFAULT_FONT); // shown when its tab is selected
+            return;
+        }
+
+        // Auto-scroll only when the view already shows the end of the document
+        boolean atBottom = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+        text.append(appended, Text.DEFAULT_FONT);
+        viewer.textChanged(pos, oldLineCount);
+        if (atBottom) {
+            scrollBar.setValue(scrollBar.getMaximum() - scrollBar.getVisibleAmount());
         }
     }
 
@@ -321,6 +416,14 @@ public class Editor {
         int result = fileChooser.showSaveDialog(frame);
         if (result == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
+            if (text.getReplacedInput() > 0) {
+                int choice = JOptionPane.showConfirmDialog(frame,
+                        text.getReplacedInput() + " byte sequence(s) could not be read as "
+                                + text.getEncoding().charset.name() + " and were replaced with U+FFFD."
+                                + "\nSaving writes the replacement character instead of the original bytes. Save anyway?",
+                        "Save", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                if (choice != JOptionPane.YES_OPTION) return;
+            }
             try {
                 text.saveWithFontInfo(selectedFile.getAbsolutePath());
             } catch (IOException e) {
@@ -374,19 +477,11 @@ public class Editor {
 
         viewer.setCaretPosition(caretPosition);
         scrollToPosition(caretPosition);
-        viewer.repaint();
     }
 
     private static void scrollToPosition(int position) {
-        // Calculate the exact line containing the position
-        int line = 0;
-        int pos = 0;
-        while (line < text.getLineCount()) {
-            int lineLength = text.getLine(line).size() + 1; // +1 for newline
-            if (pos + lineLength > position) break;
-            pos += lineLength;
-            line++;
-        }
+        // Calculate the row containing the position (a visual row when word wrap is on)
+        int line = viewer.getRowOfOffset(position);
 
         // Calculate scroll position (in pixels)
         int lineHeight = 20; // Should match your viewer's line height
@@ -397,7 +492,6 @@ public class Editor {
 
         // Set scroll position
         scrollBar.setValue(Math.min(scrollValue, scrollBar.getMaximum()));
-        viewer.repaint();
     }
     private static void setSelectionFont(String fontName, Integer size, Integer style) {
         if (viewer.selectionStart >= 0 && viewer.selectionEnd > viewer.selectionStart) {
@@ -409,9 +503,9 @@ public class Editor {
                 int newSize = size != -1 ? size : currentFont.getSize();
                 int newStyle = style != -1 ? style : currentFont.getStyle();
 
-                sc.font = new Font(newName, newStyle, newSize);
+                sc.font = Text.getFont(newName, newStyle, newSize);
             }
-            viewer.repaint();
+            viewer.stylesChanged(viewer.selectionStart, viewer.selectionEnd);
         }
     }
 
@@ -420,9 +514,9 @@ public class Editor {
             for (int i = viewer.selectionStart; i < viewer.selectionEnd; i++) {
                 Text.StyledChar sc = text.getStyledChar(i);
                 int newStyle = set ? sc.font.getStyle() | style : sc.font.getStyle() & ~style;
-                sc.font = sc.font.deriveFont(newStyle);
+                sc.font = Text.getFont(sc.font.getName(), newStyle, sc.font.getSize());
             }
-            viewer.repaint();
+            viewer.stylesChanged(viewer.selectionStart, viewer.selectionEnd);
         }
     }
 
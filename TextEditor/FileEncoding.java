@@ -0,0 +1,98 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+
+// How a text file is stored on disk (charset, byte order mark, line separator),
+// recorded on load so that saving writes the text back the same way.
+public class FileEncoding {
+    public static final FileEncoding DEFAULT = new FileEncoding(StandardCharsets.UTF_8, false, "\n");
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+
+    public final Charset charset;
+    public final boolean bom;
+    public final String lineSeparator;
+
+    public FileEncoding(Charset charset, boolean bom, String lineSeparator) {
+        this.charset = charset;
+        this.bom = bom;
+        this.lineSeparator = lineSeparator;
+    }
+
+    public byte[] getBomBytes() {
+        if (!bom) return new byte[0];
+        if (charset.equals(StandardCharsets.UTF_16BE)) return UTF16BE_BOM;
+        if (charset.equals(StandardCharsets.UTF_16LE)) return UTF16LE_BOM;
+        return UTF8_BOM;
+    }
+
+    // Length of the byte order mark at the start of the buffer, 0 if there is none
+    public static int bomLength(ByteBuffer head) {
+        if (startsWith(head, UTF8_BOM)) return UTF8_BOM.length;
+        if (startsWith(head, UTF16BE_BOM) || startsWith(head, UTF16LE_BOM)) return 2;
+        return 0;
+    }
+
+    // Guesses the charset from the first bytes of a file: the byte order mark if present,
+    // otherwise UTF-16 if every other byte is zero, UTF-8 unless the bytes hold more malformed
+    // sequences than valid multi-byte ones (so one stray byte in a UTF-8 file becomes one
+    // U+FFFD rather than turning the whole file into mojibake), and an 8-bit charset for
+    // anything else
+    public static Charset detectCharset(ByteBuffer head) {
+        if (startsWith(head, UTF8_BOM)) return StandardCharsets.UTF_8;
+        if (startsWith(head, UTF16BE_BOM)) return StandardCharsets.UTF_16BE;
+        if (startsWith(head, UTF16LE_BOM)) return StandardCharsets.UTF_16LE;
+
+        int start = head.position();
+        int length = head.remaining();
+        int evenZeros = 0, oddZeros = 0;
+        for (int i = 0; i < length; i++) {
+            if (head.get(start + i) == 0) {
+                if (i % 2 == 0) evenZeros++;
+                else oddZeros++;
+            }
+        }
+        int pairs = length / 2;
+        if (pairs > 0 && evenZeros > pairs * 0.4 && oddZeros < pairs * 0.1) return StandardCharsets.UTF_16BE;
+        if (pairs > 0 && oddZeros > pairs * 0.4 && evenZeros < pairs * 0.1) return StandardCharsets.UTF_16LE;
+
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(1024);
+        ByteBuffer in = head.duplicate();
+        int malformed = 0, multiByte = 0;
+        while (true) {
+            CoderResult result = utf8.decode(in, out, false); // a sequence cut off at the end is not an error
+            out.flip();
+            while (out.hasRemaining()) {
+                if (out.get() >= 0x80) multiByte++;
+            }
+            out.clear();
+            if (result.isError()) {
+                malformed++;
+                in.position(in.position() + result.length());
+            } else if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (malformed <= multiByte) return StandardCharsets.UTF_8;
+
+        // windows-1252 cannot read five byte values back; ISO-8859-1 keeps every byte as it is
+        for (int i = 0; i < length; i++) {
+            int b = head.get(start + i) & 0xFF;
+            if (b == 0x81 || b == 0x8D || b == 0x8F || b == 0x90 || b == 0x9D) return StandardCharsets.ISO_8859_1;
+        }
+        return Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+    }
+
+    private static boolean startsWith(ByteBuffer head, byte[] prefix) {
+        if (head.remaining() < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (head.get(head.position() + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+}
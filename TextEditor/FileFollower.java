@@ -0,0 +1,273 @@
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Follows a growing file like "tail -F": bytes appended after the known offset are read
+// through a FileChannel on a background thread, decoded, and handed to the sink on the EDT.
+// A truncated file is read again from its start, and a file that was renamed away and
+// replaced by a new one (log rotation) is reopened under its path.
+public class FileFollower {
+    private static final long POLL_MILLIS = 250;          // fallback when no watch event arrives
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_PENDING_CHARS = 8 << 20; // reader waits while the EDT catches up
+
+    // Shared by the followers of all open documents; threads are reused after a follower stops
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "file-follower");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+    private final Charset charset;
+    private final Consumer<String> sink;
+    private final Runnable failed;
+
+    private volatile boolean running;
+    private Future<?> task;
+
+    // Decoded text not yet handed to the EDT; guarded by this
+    private final StringBuilder pending = new StringBuilder();
+    private long pendingPosition;
+    private boolean drainScheduled = false;
+
+    // File offset just past the text handed to the sink so far (read on the EDT)
+    private long deliveredPosition;
+
+    // Line ending state carried across reads; "\r\n" and lone "\r" become "\n" as when loading
+    private boolean lastWasCR = false;
+
+    // failed is run on the EDT when following ends because the file could not be read
+    public FileFollower(String filePath, Charset charset, Consumer<String> sink, Runnable failed) {
+        this.path = Paths.get(filePath);
+        this.charset = charset;
+        this.sink = sink;
+        this.failed = failed;
+    }
+
+    // Starts following at the given byte offset
+    public void start(long offset) {
+        if (running) return;
+        running = true;
+        pendingPosition = offset;
+        deliveredPosition = offset;
+        task = WORKERS.submit(() -> follow(offset));
+    }
+
+    public void stop() {
+        running = false;
+        if (task != null) task.cancel(true);
+        synchronized (this) {
+            pending.setLength(0);
+            notifyAll();
+        }
+    }
+
+    // Offset to continue from when following the file again later
+    public long getPosition() {
+        return deliveredPosition;
+    }
+
+    private void follow(long offset) {
+        WatchService watcher = null;
+        try {
+            watcher = path.toAbsolutePath().getParent().getFileSystem().newWatchService();
+            path.toAbsolutePath().getParent().register(watcher,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Watching " + path + " not supported, polling instead: " + e.getMessage());
+            watcher = null;
+        }
+
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+        long position = offset;
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            Object fileKey = fileKey(); // null where the file system has no file keys
+            boolean reopen = false;
+            lastWasCR = endsWithCR(channel, position);
+
+            while (running) {
+                if (channel.size() < position) {
+                    // Truncated (e.g. copytruncate rotation): continue from the new start like tail does
+                    System.err.println("File truncated, following from start: " + path);
+                    position = 0;
+                    decoder.reset();
+                    bytes.clear();
+                    lastWasCR = false;
+                }
+
+                int n = channel.read(bytes, position);
+                if (n > 0) {
+                    position += n;
+                    bytes.flip();
+                    decoder.decode(bytes, chars, false);
+                    bytes.compact(); // keeps an incomplete multi-byte sequence for the next read
+                    chars.flip();
+                    // An incomplete sequence kept in bytes is not delivered yet
+                    publish(normalizeLineEnds(chars), position - bytes.position());
+                    chars.clear();
+                    continue; // keep reading while the file has more data
+                }
+
+                if (reopen) {
+                    // The old file has been read to its end; continue with the new one from its start
+                    FileChannel next = openIfExists();
+                    if (next != null) {
+                        System.err.println("File rotated, following the new file: " + path);
+                        channel.close();
+                        channel = next;
+                        fileKey = fileKey();
+                        reopen = false;
+                        position = 0;
+                        decoder.reset();
+                        bytes.clear();
+                        lastWasCR = false;
+                        continue;
+                    }
+                }
+
+                boolean created = false;
+                if (watcher != null) {
+                    WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                                    && path.getFileName().equals(event.context())) {
+                                created = true;
+                            }
+                        }
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(POLL_MILLIS);
+                }
+
+                // Rotation by rename and create: the path now names another file. Without file
+                // keys only a create event for the path tells. The old file is drained first.
+                Object currentKey = fileKey();
+                if (fileKey != null ? currentKey != null && !currentKey.equals(fileKey) : created) {
+                    reopen = true;
+                }
+            }
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            // stopped
+        } catch (IOException e) {
+            System.err.println("Error following file: " + e.getMessage());
+            if (running) SwingUtilities.invokeLater(failed);
+        } finally {
+            running = false;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    // Whether the last character before position is a CR, whose LF may be appended next.
+    // A few bytes are decoded rather than one, since a CR takes two bytes in UTF-16; bytes of
+    // a character cut off at the front only decode to U+FFFD.
+    private boolean endsWithCR(FileChannel channel, long position) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate((int) Math.min(4, position));
+        while (tail.hasRemaining() && channel.read(tail, position - tail.capacity() + tail.position()) > 0) {
+            // read the bytes just before position
+        }
+        tail.flip();
+        CharBuffer decoded = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(tail);
+        return decoded.length() > 0 && decoded.charAt(decoded.length() - 1) == '\r';
+    }
+
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null; // e.g. renamed away and not created again yet
+        }
+    }
+
+    private FileChannel openIfExists() throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private String normalizeLineEnds(CharBuffer chars) {
+        StringBuilder sb = new StringBuilder(chars.remaining());
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (c == '\n' && lastWasCR) {
+                lastWasCR = false;
+                continue;
+            }
+            lastWasCR = c == '\r';
+            sb.append(lastWasCR ? '\n' : c);
+        }
+        return sb.toString();
+    }
+
+    // Queues text for the EDT; a single drain task takes everything queued so far. The
+    // position only moves together with the text, so a drain during the wait below never
+    // reports bytes as delivered whose text it did not take.
+    private synchronized void publish(String appended, long positionAfter) throws InterruptedException {
+        if (!appended.isEmpty()) {
+            while (running && pending.length() > MAX_PENDING_CHARS) {
+                wait();
+            }
+        }
+        pending.append(appended);
+        pendingPosition = positionAfter;
+        if (!drainScheduled) {
+            drainScheduled = true;
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    private void drain() {
+        String appended;
+        long position;
+        synchronized (this) {
+            appended = pending.toString();
+            position = pendingPosition;
+            pending.setLength(0);
+            drainScheduled = false;
+            notifyAll();
+        }
+        if (!running) return;
+        deliveredPosition = position;
+        if (!appended.isEmpty()) sink.accept(appended);
+    }
+}
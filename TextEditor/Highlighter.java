@@ -0,0 +1,200 @@
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Incremental syntax highlighting for one Text.
+// The lexer state at the start of every line is kept in states[]. After an edit only the
+// edited line and the lines after it are re-lexed, and only until the state at a line start
+// matches the one stored before the edit again. Lines further away than SYNC_LINES are lexed
+// on a background thread from copies of their text, so the EDT never lexes the whole document.
+public class Highlighter {
+    private static final int SYNC_LINES = 300;         // most lines lexed on the EDT per edit or paint
+    private static final int CHUNK_LINES = 5000;       // lines copied for the background per job
+    private static final int MAX_LINE_LENGTH = 10000;  // longer lines are shown without highlighting
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "highlighter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Tokenizer.TokenSink NO_TOKENS = (start, end, type) -> { };
+
+    // Notified on the EDT when background lexing changed the states of lines
+    public interface Listener {
+        void linesChanged(int firstLine, int lastLine);
+    }
+
+    private final Text text;
+    private final Tokenizer tokenizer;
+    private final Listener listener;
+
+    private int[] states = new int[16];
+    // states[0..validUpTo] are correct for the current text
+    private int validUpTo = 0;
+    // states up to convergeUpTo were correct before the last edits and their lines have not
+    // changed since; once a re-lexed state matches one of them, all of them are correct again
+    private int convergeUpTo = 0;
+    // Bumped on every edit so that background results for older text are dropped
+    private int generation = 0;
+    private boolean jobRunning = false;
+    private boolean disposed = false;
+
+    // Token types of the most recently highlighted line
+    private int cachedLine = -1;
+    private TokenType[] cachedTypes;
+
+    public Highlighter(Text text, Tokenizer tokenizer, Listener listener) {
+        this.text = text;
+        this.tokenizer = tokenizer;
+        this.listener = listener;
+        states = new int[Math.max(16, text.getLineCount())];
+        states[0] = Tokenizer.INITIAL_STATE;
+        scheduleBackground();
+    }
+
+    public void dispose() {
+        disposed = true;
+        generation++;
+    }
+
+    // Token type of every character of the line, or null while the line is not lexed yet
+    // (or too long to highlight)
+    public TokenType[] getTokenTypes(int line) {
+        if (line == cachedLine) return cachedTypes;
+        if (line > validUpTo) {
+            if (line - validUpTo > SYNC_LINES) {
+                scheduleBackground();
+                return null;
+            }
+            lexForward(line);
+        }
+
+        int start = text.getLineStart(line);
+        int length = text.getLineEnd(line) - start;
+        if (length > MAX_LINE_LENGTH) return null;
+
+        TokenType[] types = new TokenType[length];
+        Arrays.fill(types, TokenType.PLAIN);
+        tokenizer.tokenizeLine(lineText(line), states[line], (s, e, type) -> Arrays.fill(types, s, e, type));
+        cachedLine = line;
+        cachedTypes = types;
+        return types;
+    }
+
+    // Updates the states after an edit starting on line editLine. Returns the last line whose
+    // highlighting may have changed, so the Viewer can redraw editLine..that line.
+    public int textChanged(int editLine, int oldLineCount) {
+        int delta = text.getLineCount() - oldLineCount;
+        generation++;
+        cachedLine = -1;
+
+        // Lines created by the edit get no state yet; lines removed by it drop theirs
+        int oldLines = oldLineCount;
+        if (delta > 0) {
+            if (oldLines + delta > states.length) {
+                states = Arrays.copyOf(states, Math.max(states.length * 2, oldLines + delta));
+            }
+            System.arraycopy(states, editLine + 1, states, editLine + 1 + delta, oldLines - editLine - 1);
+            Arrays.fill(states, editLine + 1, editLine + 1 + delta, -1);
+        } else if (delta < 0) {
+            System.arraycopy(states, editLine + 1 - delta, states, editLine + 1, oldLines - editLine - 1 + delta);
+        }
+        int oldEditEnd = editLine + Math.max(0, -delta);
+
+        if (validUpTo < editLine) {
+            // The edited line is not lexed yet; the background job will reach it. The states
+            // stored after it belong to its old content, so they cannot be converged with.
+            convergeUpTo = Math.min(convergeUpTo, editLine);
+            scheduleBackground();
+            return editLine;
+        }
+        convergeUpTo = validUpTo > oldEditEnd ? validUpTo + delta : editLine;
+        validUpTo = editLine;
+        int last = lexForward(Math.min(text.getLineCount() - 1, editLine + SYNC_LINES));
+        scheduleBackground();
+        return last;
+    }
+
+    // Lexes forward from validUpTo until limit, skipping ahead when the states converge with
+    // the ones known before an edit. Returns the last line whose start state was rewritten.
+    private int lexForward(int limit) {
+        int lastChanged = validUpTo;
+        while (validUpTo < limit && validUpTo < text.getLineCount() - 1) {
+            int line = validUpTo;
+            int next = lexState(line, states[line]);
+            if (line + 1 <= convergeUpTo && states[line + 1] == next) {
+                validUpTo = convergeUpTo; // unchanged from here on
+                continue;
+            }
+            states[line + 1] = next;
+            validUpTo = line + 1;
+            lastChanged = line + 1;
+            if (line + 1 == cachedLine) cachedLine = -1;
+        }
+        return lastChanged;
+    }
+
+    // Hands the next chunk of unlexed lines to the worker. The text is copied here on the EDT,
+    // so the worker never touches Text while it is being edited.
+    private void scheduleBackground() {
+        if (disposed || jobRunning || validUpTo >= text.getLineCount() - 1) return;
+        jobRunning = true;
+        int jobGeneration = generation;
+        int start = validUpTo;
+        int count = Math.min(CHUNK_LINES, text.getLineCount() - 1 - start);
+        int startState = states[start];
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            int line = start + i;
+            lines[i] = text.getLineEnd(line) - text.getLineStart(line) > MAX_LINE_LENGTH ? null : lineText(line);
+        }
+
+        WORKER.execute(() -> {
+            int[] result = new int[count];
+            int state = startState;
+            for (int i = 0; i < count; i++) {
+                if (lines[i] != null) state = tokenizer.tokenizeLine(lines[i], state, NO_TOKENS);
+                result[i] = state;
+            }
+            SwingUtilities.invokeLater(() -> applyBackground(jobGeneration, start, result));
+        });
+    }
+
+    private void applyBackground(int jobGeneration, int start, int[] result) {
+        jobRunning = false;
+        if (disposed) return;
+        if (jobGeneration != generation || start != validUpTo) {
+            scheduleBackground();
+            return;
+        }
+        int lastChanged = start;
+        for (int i = 0; i < result.length; i++) {
+            int line = start + i + 1;
+            if (line <= convergeUpTo && states[line] == result[i]) {
+                validUpTo = convergeUpTo;
+                break;
+            }
+            states[line] = result[i];
+            validUpTo = line;
+            lastChanged = line;
+        }
+        cachedLine = -1;
+        listener.linesChanged(start, lastChanged);
+        scheduleBackground();
+    }
+
+    private int lexState(int line, int state) {
+        if (text.getLineEnd(line) - text.getLineStart(line) > MAX_LINE_LENGTH) return state;
+        return tokenizer.tokenizeLine(lineText(line), state, NO_TOKENS);
+    }
+
+    private String lineText(int line) {
+        int start = text.getLineStart(line);
+        int end = text.getLineEnd(line);
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) sb.append(text.charAt(i));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Java grammar: keywords, literals, line and block comments and text blocks
+public class JavaTokenizer implements Tokenizer {
+    private static final int IN_BLOCK_COMMENT = 1;
+    private static final int IN_TEXT_BLOCK = 2;
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "record", "return", "short", "static",
+            "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try",
+            "var", "void", "volatile", "while", "yield", "true", "false", "null"));
+
+    @Override
+    public int tokenizeLine(CharSequence line, int state, TokenSink sink) {
+        int i = 0;
+        int length = line.length();
+        while (i < length) {
+            if (state == IN_BLOCK_COMMENT) {
+                int end = indexOf(line, "*/", i);
+                int stop = end < 0 ? length : end + 2;
+                sink.token(i, stop, TokenType.COMMENT);
+                i = stop;
+                if (end >= 0) state = INITIAL_STATE;
+                continue;
+            }
+            if (state == IN_TEXT_BLOCK) {
+                int end = indexOf(line, "\"\"\"", i);
+                int stop = end < 0 ? length : end + 3;
+                sink.token(i, stop, TokenType.STRING);
+                i = stop;
+                if (end >= 0) state = INITIAL_STATE;
+                continue;
+            }
+
+            char c = line.charAt(i);
+            if (c == '/' && i + 1 < length && line.charAt(i + 1) == '/') {
+                sink.token(i, length, TokenType.COMMENT);
+                i = length;
+            } else if (c == '/' && i + 1 < length && line.charAt(i + 1) == '*') {
+                sink.token(i, i + 2, TokenType.COMMENT);
+                i += 2;
+                state = IN_BLOCK_COMMENT;
+            } else if (c == '"' && indexOf(line, "\"\"\"", i) == i) {
+                sink.token(i, i + 3, TokenType.STRING);
+                i += 3;
+                state = IN_TEXT_BLOCK;
+            } else if (c == '"' || c == '\'') {
+                int end = Tokenizer.scanString(line, i);
+                sink.token(i, end, TokenType.STRING);
+                i = end;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(line.charAt(end))) end++;
+                if (KEYWORDS.contains(line.subSequence(i, end).toString())) {
+                    sink.token(i, end, TokenType.KEYWORD);
+                }
+                i = end;
+            } else if (Character.isDigit(c)) {
+                int end = i + Tokenizer.scanNumber(line, i);
+                sink.token(i, end, TokenType.NUMBER);
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return state;
+    }
+
+    private static int indexOf(CharSequence line, String s, int from) {
+        outer:
+        for (int i = from; i + s.length() <= line.length(); i++) {
+            for (int j = 0; j < s.length(); j++) {
+                if (line.charAt(i + j) != s.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,34 @@
+// JSON grammar: object keys, string values, numbers and true/false/null
+public class JsonTokenizer implements Tokenizer {
+
+    @Override
+    public int tokenizeLine(CharSequence line, int state, TokenSink sink) {
+        int i = 0;
+        int length = line.length();
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                int end = Tokenizer.scanString(line, i);
+                int next = end;
+                while (next < length && Character.isWhitespace(line.charAt(next))) next++;
+                sink.token(i, end, next < length && line.charAt(next) == ':' ? TokenType.KEY : TokenType.STRING);
+                i = end;
+            } else if (c == '-' || Character.isDigit(c)) {
+                int end = i + Math.max(1, Tokenizer.scanNumber(line, i));
+                sink.token(i, end, TokenType.NUMBER);
+                i = end;
+            } else if (Character.isLetter(c)) {
+                int end = i + 1;
+                while (end < length && Character.isLetter(line.charAt(end))) end++;
+                String word = line.subSequence(i, end).toString();
+                if (word.equals("true") || word.equals("false") || word.equals("null")) {
+                    sink.token(i, end, TokenType.KEYWORD);
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL_STATE; // JSON strings cannot span lines
+    }
+}
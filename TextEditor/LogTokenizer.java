@@ -0,0 +1,90 @@
+// Log file grammar: leading timestamps, level words, quoted strings and numbers.
+// Indented lines and "Caused by:" lines after an ERROR line (stack traces) stay red.
+public class LogTokenizer implements Tokenizer {
+    private static final int AFTER_ERROR = 1;
+
+    @Override
+    public int tokenizeLine(CharSequence line, int state, TokenSink sink) {
+        int length = line.length();
+        if (state == AFTER_ERROR && length > 0
+                && (Character.isWhitespace(line.charAt(0)) || startsWith(line, 0, "Caused by:"))) {
+            sink.token(0, length, TokenType.ERROR);
+            return AFTER_ERROR;
+        }
+
+        int next = INITIAL_STATE;
+        int i = scanTimestamp(line);
+        if (i > 0) sink.token(0, i, TokenType.TIMESTAMP);
+        while (i < length) {
+            char c = line.charAt(i);
+            if (Character.isLetter(c)) {
+                int end = i + 1;
+                while (end < length && Character.isLetter(line.charAt(end))) end++;
+                TokenType level = levelOf(line.subSequence(i, end).toString());
+                if (level != null) {
+                    sink.token(i, end, level);
+                    if (level == TokenType.ERROR) next = AFTER_ERROR;
+                }
+                i = end;
+            } else if (c == '"') {
+                int end = Tokenizer.scanString(line, i);
+                sink.token(i, end, TokenType.STRING);
+                i = end;
+            } else if (Character.isDigit(c)) {
+                int end = i + Tokenizer.scanNumber(line, i);
+                sink.token(i, end, TokenType.NUMBER);
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return next;
+    }
+
+    private static TokenType levelOf(String word) {
+        switch (word) {
+            case "ERROR":
+            case "FATAL":
+            case "SEVERE":
+                return TokenType.ERROR;
+            case "WARN":
+            case "WARNING":
+                return TokenType.WARNING;
+            case "INFO":
+                return TokenType.INFO;
+            case "DEBUG":
+            case "TRACE":
+                return TokenType.COMMENT;
+            default:
+                return null;
+        }
+    }
+
+    // Length of a leading date/time such as "2024-05-01 12:00:00,123" or "2024-05-01T12:00:00.123Z"
+    private static int scanTimestamp(CharSequence line) {
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isDigit(c) || c == '-' || c == ':' || c == '.' || c == ',' || c == '/'
+                    || c == 'T' || c == 'Z' || c == '+' || (c == ' ' && i > 0 && i + 1 < line.length()
+                    && Character.isDigit(line.charAt(i - 1)) && Character.isDigit(line.charAt(i + 1)))) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        int digits = 0;
+        for (int j = 0; j < i; j++) {
+            if (Character.isDigit(line.charAt(j))) digits++;
+        }
+        return digits >= 8 ? i : 0;
+    }
+
+    private static boolean startsWith(CharSequence line, int from, String prefix) {
+        if (line.length() - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(from + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -1,18 +1,77 @@
 import java.awt.Font;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class Text {
-    private List<StyledChar> characters;
+    public static final Font DEFAULT_FONT = new Font("Monospaced", Font.PLAIN, 14);
+    private static final int LOAD_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FONT_INFO_LINE = 256;
+    // Approximate heap used per character: a StyledChar plus its slot in the list
+    public static final int BYTES_PER_CHAR = 28;
+
+    // Application-wide font pool: every document shares one Font per name, style and size
+    private static final Map<String, Font> fontPool = new ConcurrentHashMap<>();
+
+    private ArrayList<StyledChar> characters;
+
+    // How the file was stored on disk, and whether it carried font information
+    private FileEncoding encoding = FileEncoding.DEFAULT;
+    private boolean styledFile = false;
+
+    // Bytes of the file this text was read from; following continues after them
+    private long fileOffset = 0;
+
+    // Byte sequences of the file that could not be decoded and were read as U+FFFD
+    private int replacedInput = 0;
+
+    // While evicted, the characters live only in this compressed snapshot file
+    private Path snapshot;
+
+    // Start offset of every line, kept in step with characters by insert/delete
+    private int[] lineStarts = new int[16];
+    private int lineCount = 1;
 
     // Application-wide clipboard
     public static List<StyledChar> clipboard = new ArrayList<>();
 
 
+    // The pooled font with the given name, style and size; created on first use
+    public static Font getFont(String name, int style, int size) {
+        return fontPool.computeIfAbsent(name + "," + style + "," + size, key -> new Font(name, style, size));
+    }
+
     public void saveWithFontInfo(String filePath) throws IOException {
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath))) {
+        checkEncodable(encoding.charset); // before the file is touched
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(filePath)))) {
+            out.write(encoding.getBomBytes());
+            // Characters the charset cannot store fail the write instead of becoming '?'
+            CharsetEncoder encoder = encoding.charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            // A plain file that was never styled is written back exactly as it was read
+            write(new OutputStreamWriter(out, encoder), encoding.lineSeparator,
+                    styledFile || !hasOnlyFont(DEFAULT_FONT));
+        }
+    }
+
+    private void write(Writer writer, String newline, boolean withFontInfo) throws IOException {
+        if (withFontInfo) {
             // Write font/style/size ranges
             Font currentFont = null;
             int rangeStart = 0;
@@ -25,12 +84,13 @@ public class Text {
                 if (i == characters.size() || (currentFont != null && !font.equals(currentFont))) {
                     if (currentFont != null) { // Ensure we have a valid range to write
                         // Write the style range with size
-                        writer.write(String.format("%d,%d,%s,%d,%d\n",
+                        writer.write(String.format("%d,%d,%s,%d,%d%s",
                                 rangeStart,
                                 i,
                                 currentFont.getName(),
                                 currentFont.getStyle(),
-                                currentFont.getSize())); // Add size here
+                                currentFont.getSize(), // Add size here
+                                newline));
                     }
                     rangeStart = i;
                 }
@@ -38,114 +98,338 @@ public class Text {
             }
 
             // Write text separator
-            writer.write("---\n");
+            writer.write("---" + newline);
+        }
 
-            // Write actual text content
-            writer.write(getText());
+        // Write actual text content, restoring the file's line separator
+        char[] chunk = new char[8192];
+        int n = 0;
+        for (StyledChar sc : characters) {
+            if (n + newline.length() > chunk.length) {
+                writer.write(chunk, 0, n);
+                n = 0;
+            }
+            if (sc.character == '\n') {
+                newline.getChars(0, newline.length(), chunk, n);
+                n += newline.length();
+            } else {
+                chunk[n++] = sc.character;
+            }
         }
+        writer.write(chunk, 0, n);
+        writer.flush();
     }
 
+    // Throws if a character cannot be stored in the charset, e.g. CJK typed into a windows-1252 file
+    private void checkEncodable(Charset charset) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder();
+        for (int i = 0; i < characters.size(); i++) {
+            char c = characters.get(i).character;
+            if (c < 0x80) continue;
+            boolean pair = Character.isHighSurrogate(c) && i + 1 < characters.size()
+                    && Character.isLowSurrogate(characters.get(i + 1).character);
+            boolean encodable = pair
+                    ? encoder.canEncode(new String(new char[]{c, characters.get(i + 1).character}))
+                    : encoder.canEncode(c);
+            if (!encodable) {
+                throw new IOException(String.format("character U+%04X at offset %d cannot be saved as %s",
+                        pair ? Character.toCodePoint(c, characters.get(i + 1).character) : (int) c, i, charset.name()));
+            }
+            if (pair) i++;
+        }
+    }
 
-    public Text(String filePath) {
-        characters = new ArrayList<>();
-        Font defaultFont = new Font("Monospaced", Font.PLAIN, 14); // Default font size for plain text or missing info
+    // === Eviction ===
 
-        try {
-            List<String> lines = Files.readAllLines(Paths.get(filePath));
-
-            // Check if this *might* be a styled file format by looking for the separator
-            int separatorIndex = lines.indexOf("---");
-            boolean isStyledFileFormat = separatorIndex != -1; // Separator indicates the format
-
-            if (isStyledFileFormat) {
-                // This *might* be a styled file, attempt to parse font info before the separator
-                Map<Integer, Font> fontMap = new HashMap<>();
-
-                // Parse lines *before* the separator for font information
-                for (int i = 0; i < separatorIndex; i++) {
-                    String line = lines.get(i);
-                    String[] parts = line.split(",");
-
-                    int start = -1, end = -1, style = -1, size = defaultFont.getSize(); // Default size
-                    String fontName = null;
-                    boolean parsedSuccessfully = false;
-
-                    try {
-                        if (parts.length >= 4) {
-                            start = Integer.parseInt(parts[0].trim());
-                            end = Integer.parseInt(parts[1].trim());
-                            fontName = parts[2].trim();
-                            style = Integer.parseInt(parts[3].trim());
-
-                            if (parts.length >= 5) {
-                                // Size information is present
-                                size = Integer.parseInt(parts[4].trim());
-                            }
-
-                            // Validate basic range sanity
-                            if (start >= 0 && end > start) {
-                                Font font = new Font(fontName, style, size);
-                                for (int pos = start; pos < end; pos++) {
-                                    fontMap.put(pos, font);
-                                }
-                                parsedSuccessfully = true;
-                            } else {
-                                System.err.println("Warning: Invalid range [" + start + "," + end + "] in font info line: " + line);
-                            }
-
-                        } else {
-                            System.err.println("Warning: Malformed font info line (less than 4 parts): " + line);
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Error parsing numbers in font info line: " + line + " - " + e.getMessage());
-                        // continue parsing other lines
-                    } catch (IllegalArgumentException e) {
-                        System.err.println("Error creating Font from info line: " + line + " - " + e.getMessage());
-                        // This might happen if fontName or style is invalid
-                        // continue parsing other lines
-                    }
-                }
+    public boolean isEvicted() {
+        return snapshot != null;
+    }
+
+    // Heap the characters and line index of this text take up, roughly
+    public long estimatedMemory() {
+        return isEvicted() ? 0 : (long) characters.size() * BYTES_PER_CHAR + lineStarts.length * 4L;
+    }
 
-                // Read content from lines *after* the separator
-                StringBuilder content = new StringBuilder();
-                for (int i = separatorIndex + 1; i < lines.size(); i++) {
-                    content.append(lines.get(i));
-                    if (i < lines.size() - 1) { // Add newline for all lines except the very last one
-                        content.append("\n");
+    // Writes the characters with their fonts to a gzip snapshot and drops them from memory.
+    // The text must not be used until restore() has read them back. The snapshot holds raw
+    // UTF-16 code units, so any text comes back unchanged, even a lone surrogate.
+    public void evict(Path snapshotFile) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshotFile)))) {
+            write(new Writer() {
+                @Override
+                public void write(char[] chunk, int offset, int length) throws IOException {
+                    byte[] bytes = new byte[length * 2];
+                    for (int i = 0; i < length; i++) {
+                        bytes[2 * i] = (byte) (chunk[offset + i] >> 8);
+                        bytes[2 * i + 1] = (byte) chunk[offset + i];
                     }
+                    out.write(bytes);
                 }
-                String text = content.toString();
 
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
 
-                // Create styled characters, applying parsed fonts or default
-                for (int i = 0; i < text.length(); i++) {
-                    // Get the specific font for this position, or use default if not found
-                    Font font = fontMap.getOrDefault(i, defaultFont);
-                    characters.add(new StyledChar(text.charAt(i), font));
+                @Override
+                public void close() {
                 }
+            }, "\n", true);
+        }
+        snapshot = snapshotFile;
+        characters = new ArrayList<>();
+        lineStarts = new int[16];
+        lineCount = 1;
+    }
 
-            } else {
-                StringBuilder plainContent = new StringBuilder();
-                for(int i = 0; i < lines.size(); i++){
-                    plainContent.append(lines.get(i));
-                    if(i < lines.size() - 1){
-                        plainContent.append("\n");
+    // Reads the characters back from the snapshot written by evict() and deletes it. The
+    // encoding, style flag and replacement count of the original file are kept, so saving
+    // is not affected. If the snapshot cannot be read the text stays evicted and the
+    // snapshot is kept.
+    public void restore() throws IOException {
+        if (snapshot == null) return;
+        boolean fileStyled = styledFile;
+        characters = new ArrayList<>();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(snapshot), LOAD_BUFFER_SIZE)) {
+            byte[] buffer = new byte[LOAD_BUFFER_SIZE];
+            int high = -1; // first byte of a code unit split between two reads
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    if (high < 0) {
+                        high = buffer[i] & 0xFF;
+                    } else {
+                        characters.add(new StyledChar((char) (high << 8 | buffer[i] & 0xFF), DEFAULT_FONT));
+                        high = -1;
                     }
                 }
-                for(char c : plainContent.toString().toCharArray()){
-                    characters.add(new StyledChar(c, defaultFont));
-                }
             }
+            if (high >= 0) throw new EOFException("snapshot ends in the middle of a character");
+        } catch (IOException e) {
+            characters = new ArrayList<>();
+            throw e;
+        }
+        rebuildLineIndex();
+        readFontInfo(DEFAULT_FONT, true);
+        styledFile = fileStyled;
+        discardSnapshot();
+    }
+
+    // Deletes the snapshot of an evicted text, e.g. when its document is closed
+    public void discardSnapshot() {
+        if (snapshot == null) return;
+        try {
+            Files.deleteIfExists(snapshot);
+        } catch (IOException e) {
+            System.err.println("Error deleting snapshot: " + e.getMessage());
+        }
+        snapshot = null;
+    }
+
+    private boolean hasOnlyFont(Font font) {
+        for (StyledChar sc : characters) {
+            if (!sc.font.equals(font)) return false;
+        }
+        return true;
+    }
+
+
+    public Text(String filePath) {
+        characters = new ArrayList<>();
+        Font defaultFont = DEFAULT_FONT; // Default font size for plain text or missing info
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            load(channel, null, defaultFont);
         } catch (IOException e) {
             System.out.println("Error reading file: " + e.getMessage());
             // Initialize with empty content on file reading error
             characters = new ArrayList<>();
+            encoding = FileEncoding.DEFAULT;
         }
+        rebuildLineIndex();
+        readFontInfo(defaultFont, false);
     }
 
+    private void readFontInfo(Font defaultFont, boolean snapshotFormat) {
+        int separatorLine = findSeparatorLine(snapshotFormat);
+        if (separatorLine >= 0) {
+            applyFontInfo(separatorLine, defaultFont);
+        }
+    }
+
+    // Line of the "---" separator when the text starts with a font info header, otherwise -1.
+    // Every line before it must be a start,end,name,style[,size] range, so a plain file with
+    // a "---" line (Markdown, YAML front matter) is not mistaken for a styled one. Only
+    // snapshots may have an empty header (for an empty text).
+    private int findSeparatorLine(boolean snapshotFormat) {
+        for (int line = 0; line < lineCount; line++) {
+            int start = getLineStart(line);
+            int length = getLineEnd(line) - start;
+            if (length > MAX_FONT_INFO_LINE) return -1;
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = start; i < start + length; i++) sb.append(charAt(i));
+            String s = sb.toString();
+            if (s.equals("---")) return line > 0 || snapshotFormat ? line : -1;
+            if (!isFontInfoLine(s)) return -1;
+        }
+        return -1;
+    }
+
+    private static boolean isFontInfoLine(String line) {
+        String[] parts = line.split(",");
+        if (parts.length != 4 && parts.length != 5) return false;
+        try {
+            Integer.parseInt(parts[0].trim());
+            Integer.parseInt(parts[1].trim());
+            Integer.parseInt(parts[3].trim());
+            if (parts.length == 5) Integer.parseInt(parts[4].trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return !parts[2].trim().isEmpty();
+    }
+
+    // Reads the file in one streaming pass: fixed-size chunks are decoded straight into
+    // characters, malformed bytes become U+FFFD (and are counted, so saving can warn that
+    // they are lost) and CR LF / CR line breaks become '\n'. The charset (detected when
+    // null), byte order mark and first line separator seen are kept for saving.
+    private void load(ReadableByteChannel channel, Charset charset, Font font) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(LOAD_BUFFER_SIZE);
+        long consumed = 0;
+        int n;
+        while (bytes.hasRemaining() && (n = channel.read(bytes)) >= 0) {
+            consumed += n; // fill the first chunk for encoding detection
+        }
+        bytes.flip();
+
+        if (charset == null) charset = FileEncoding.detectCharset(bytes);
+        int bomLength = FileEncoding.bomLength(bytes);
+        bytes.position(bomLength);
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(LOAD_BUFFER_SIZE);
+        int replaced = 0;
+
+        String lineSeparator = null;
+        boolean lastWasCR = false;
+        int stage = 0; // 0: more input may follow, 1: last input, 2: flushing the decoder
+        while (true) {
+            CoderResult result = stage == 2 ? decoder.flush(chars) : decoder.decode(bytes, chars, stage == 1);
+            chars.flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n' && lastWasCR) {
+                    if (lineSeparator == null) lineSeparator = "\r\n";
+                    lastWasCR = false;
+                    continue;
+                }
+                if (lastWasCR && lineSeparator == null) lineSeparator = "\r";
+                if (c == '\n' && lineSeparator == null) lineSeparator = "\n";
+                lastWasCR = c == '\r';
+                characters.add(new StyledChar(lastWasCR ? '\n' : c, font));
+            }
+            chars.clear();
+            if (result.isError()) {
+                // Replaced here rather than by the decoder, to know that it happened
+                bytes.position(bytes.position() + result.length());
+                chars.put('\uFFFD');
+                replaced++;
+                continue;
+            }
+            if (result.isOverflow()) continue;
+            if (stage == 2) break;
+            if (stage == 1) {
+                stage = 2;
+                continue;
+            }
 
+            bytes.compact();
+            n = channel.read(bytes);
+            if (n < 0) stage = 1; // a truncated sequence at the end becomes U+FFFD
+            else consumed += n;
+            bytes.flip();
+        }
+        if (lastWasCR && lineSeparator == null) lineSeparator = "\r";
+
+        encoding = new FileEncoding(charset, bomLength > 0, lineSeparator != null ? lineSeparator : "\n");
+        fileOffset = consumed;
+        replacedInput = replaced;
+    }
+
+    // Applies the font ranges listed before the separator line to the text after it
+    private void applyFontInfo(int separatorLine, Font defaultFont) {
+        styledFile = true;
+        List<String> header = new ArrayList<>();
+        for (int line = 0; line < separatorLine; line++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = getLineStart(line); i < getLineEnd(line); i++) sb.append(charAt(i));
+            header.add(sb.toString());
+        }
+        int contentStart = getLineEnd(separatorLine) < characters.size()
+                ? getLineEnd(separatorLine) + 1 : characters.size();
+        characters.subList(0, contentStart).clear();
+        rebuildLineIndex();
+
+        // Parse lines *before* the separator for font information
+        for (String line : header) {
+            String[] parts = line.split(",");
+
+            int start = -1, end = -1, style = -1, size = defaultFont.getSize(); // Default size
+            String fontName = null;
+
+            try {
+                if (parts.length >= 4) {
+                    start = Integer.parseInt(parts[0].trim());
+                    end = Integer.parseInt(parts[1].trim());
+                    fontName = parts[2].trim();
+                    style = Integer.parseInt(parts[3].trim());
+
+                    if (parts.length >= 5) {
+                        // Size information is present
+                        size = Integer.parseInt(parts[4].trim());
+                    }
+
+                    // Validate basic range sanity
+                    if (start >= 0 && end > start) {
+                        setFontRange(start, end, getFont(fontName, style, size));
+                    } else {
+                        System.err.println("Warning: Invalid range [" + start + "," + end + "] in font info line: " + line);
+                    }
+
+                } else {
+                    System.err.println("Warning: Malformed font info line (less than 4 parts): " + line);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Error parsing numbers in font info line: " + line + " - " + e.getMessage());
+                // continue parsing other lines
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error creating Font from info line: " + line + " - " + e.getMessage());
+                // This might happen if fontName or style is invalid
+                // continue parsing other lines
+            }
+        }
+    }
 
 
+    public long getFileOffset() {
+        return fileOffset;
+    }
+
+    public void setFileOffset(long offset) {
+        fileOffset = offset;
+    }
+
+    // Number of byte sequences that could not be decoded when loading; saving writes U+FFFD
+    // in their place
+    public int getReplacedInput() {
+        return replacedInput;
+    }
+
+    public FileEncoding getEncoding() {
+        return encoding;
+    }
+
     public int getLength() {
         return characters.size();
     }
@@ -162,12 +446,28 @@ public class Text {
         for (int i = 0; i < text.length(); i++) {
             characters.add(pos + i, new StyledChar(text.charAt(i), font));
         }
+        lineIndexInserted(pos, text.length());
+    }
+
+    // Adds text at the end in one step: room is made once and only the added characters are
+    // scanned for line starts. Used for the text a followed file grows by.
+    public void append(String text, Font font) {
+        int pos = characters.size();
+        characters.ensureCapacity(pos + text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            characters.add(new StyledChar(c, font));
+            if (c == '\n') addLineStart(lineCount, pos + i + 1);
+        }
     }
 
     public void delete(int pos, int length) {
+        int removed = 0, removedLines = 0;
         for (int i = 0; i < length && pos < characters.size(); i++) {
-            characters.remove(pos);
+            if (characters.remove(pos).character == '\n') removedLines++;
+            removed++;
         }
+        lineIndexDeleted(pos, removed, removedLines);
     }
 
     public void setFontRange(int start, int end, Font font) {
@@ -177,29 +477,72 @@ public class Text {
     }
 
     public int getLineCount() {
-        int lines = 1;
-        for (StyledChar sc : characters) {
-            if (sc.character == '\n') lines++;
+        return lineCount;
+    }
+
+    // Offset of the first character of the given line
+    public int getLineStart(int line) {
+        return lineStarts[line];
+    }
+
+    // Offset just past the last character of the given line (excluding the newline)
+    public int getLineEnd(int line) {
+        return line + 1 < lineCount ? lineStarts[line + 1] - 1 : characters.size();
+    }
+
+    // Line containing the given offset, found by binary search over the line index
+    public int getLineOfOffset(int pos) {
+        int lo = 0, hi = lineCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStarts[mid] <= pos) lo = mid;
+            else hi = mid - 1;
         }
-        return lines;
+        return lo;
     }
 
     public List<StyledChar> getLine(int index) {
-        int line = 0;
-        int i = 0;
-        List<StyledChar> result = new ArrayList<>();
+        if (index < 0 || index >= lineCount) return new ArrayList<>();
+        return new ArrayList<>(characters.subList(getLineStart(index), getLineEnd(index)));
+    }
 
-        while (i < characters.size() && line < index) {
-            if (characters.get(i).character == '\n') line++;
-            i++;
+    // === Line Index ===
+
+    private void rebuildLineIndex() {
+        lineCount = 1;
+        lineStarts[0] = 0;
+        for (int i = 0; i < characters.size(); i++) {
+            if (characters.get(i).character == '\n') addLineStart(lineCount, i + 1);
         }
+    }
 
-        while (i < characters.size() && characters.get(i).character != '\n') {
-            result.add(characters.get(i));
-            i++;
+    // Shifts the lines after pos and records the newlines among the len inserted characters
+    private void lineIndexInserted(int pos, int len) {
+        int line = getLineOfOffset(pos);
+        for (int l = line + 1; l < lineCount; l++) lineStarts[l] += len;
+        int at = line + 1;
+        for (int i = pos; i < pos + len; i++) {
+            if (characters.get(i).character == '\n') addLineStart(at++, i + 1);
         }
+    }
 
-        return result;
+    // Drops the lines whose newline was among the len deleted characters and shifts the rest
+    private void lineIndexDeleted(int pos, int len, int removedLines) {
+        if (len <= 0) return;
+        int line = getLineOfOffset(pos);
+        System.arraycopy(lineStarts, line + 1 + removedLines, lineStarts, line + 1,
+                lineCount - line - 1 - removedLines);
+        lineCount -= removedLines;
+        for (int l = line + 1; l < lineCount; l++) lineStarts[l] -= len;
+    }
+
+    private void addLineStart(int at, int start) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+        }
+        System.arraycopy(lineStarts, at, lineStarts, at + 1, lineCount - at);
+        lineStarts[at] = start;
+        lineCount++;
     }
 
     // === Clipboard Operations ===
@@ -222,6 +565,7 @@ public class Text {
             StyledChar sc = clipboard.get(i);
             characters.add(pos + i, new StyledChar(sc.character, sc.font));
         }
+        lineIndexInserted(pos, clipboard.size());
     }
 
     // === Method to return the text as a String ===
@@ -0,0 +1,21 @@
+import java.awt.Color;
+
+// Kinds of tokens a Tokenizer reports, with the color the Viewer draws them in
+public enum TokenType {
+    PLAIN(null), // drawn in the viewer's foreground color
+    KEYWORD(new Color(0, 0, 160)),
+    STRING(new Color(0, 128, 0)),
+    NUMBER(new Color(128, 0, 128)),
+    COMMENT(new Color(128, 128, 128)),
+    KEY(new Color(150, 60, 0)),
+    TIMESTAMP(new Color(0, 110, 130)),
+    ERROR(new Color(200, 0, 0)),
+    WARNING(new Color(190, 120, 0)),
+    INFO(new Color(0, 90, 200));
+
+    public final Color color;
+
+    TokenType(Color color) {
+        this.color = color;
+    }
+}
@@ -0,0 +1,46 @@
+// A syntax grammar for highlighting. Lines are tokenized one at a time; everything a line
+// needs to know about the lines before it (e.g. "inside a block comment") is passed in as
+// an int state, so the Highlighter can restart lexing at any line it has a state for.
+// Implementations must be stateless: lines are also lexed on a background thread.
+public interface Tokenizer {
+    int INITIAL_STATE = 0;
+
+    // Reports the tokens of one line (without its '\n') and returns the state the next line starts in
+    int tokenizeLine(CharSequence line, int state, TokenSink sink);
+
+    interface TokenSink {
+        void token(int start, int end, TokenType type);
+    }
+
+    // Grammar for a file name, or null if the file type is not known
+    static Tokenizer forFile(String path) {
+        String name = path.toLowerCase();
+        if (name.endsWith(".java")) return new JavaTokenizer();
+        if (name.endsWith(".json")) return new JsonTokenizer();
+        if (name.endsWith(".log")) return new LogTokenizer();
+        return null;
+    }
+
+    // Length of the number starting at i, 0 if there is none
+    static int scanNumber(CharSequence line, int i) {
+        int end = i;
+        if (end < line.length() && line.charAt(end) == '-') end++;
+        if (end >= line.length() || !Character.isDigit(line.charAt(end))) return 0;
+        while (end < line.length() && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '.' || line.charAt(end) == '_')) {
+            end++;
+        }
+        return end - i;
+    }
+
+    // Offset just past the string literal opened by the quote at i (or the end of the line)
+    static int scanString(CharSequence line, int i) {
+        char quote = line.charAt(i);
+        int end = i + 1;
+        while (end < line.length()) {
+            char c = line.charAt(end++);
+            if (c == '\\') end++;
+            else if (c == quote) break;
+        }
+        return Math.min(end, line.length());
+    }
+}
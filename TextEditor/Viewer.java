@@ -1,6 +1,8 @@
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
 
 public class Viewer extends JPanel {
     private Text text;
@@ -13,93 +15,356 @@ public class Viewer extends JPanel {
     private final int lineHeight = 20;
     private final int margin = 10;
 
+    // Soft-wrap mode; null when every text line is shown as exactly one row
+    private WrapIndex wrap;
+    private int textLength;
+
+    // Syntax coloring; null when the characters are drawn in the foreground color only
+    private Tokenizer tokenizer;
+    private Highlighter highlighter;
+
+    // Offscreen copy of the rendered rows; the caret is drawn on top of it
+    private BufferedImage buffer;
+    private int bufferTopRow = 0;
+
+    // Rows that must be re-rendered into the buffer on the next paint
+    private int dirtyFrom = 0;
+    private int dirtyTo = Integer.MAX_VALUE;
+
     public Viewer(Text text, JScrollBar scrollBar) {
         this.text = text;
         this.scrollBar = scrollBar;
+        this.textLength = text.getLength();
 
         scrollBar.addAdjustmentListener(e -> repaint());
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (wrap != null) {
+                    // Keep the first visible character in view; rows are reflowed lazily
+                    int topOffset = wrap.rowStart(getTopRow());
+                    wrap.setWidth(wrapWidth());
+                    markDirty(0, Integer.MAX_VALUE);
+                    updateScrollRange();
+                    scrollBar.setValue(wrap.rowOfOffset(topOffset) * lineHeight);
+                } else {
+                    updateScrollRange();
+                }
+            }
+        });
+        updateScrollRange();
     }
 
     public void setCaretPosition(int pos) {
+        int oldPosition = caretPosition;
         caretPosition = pos;
+        repaintRows(getRowOfOffset(oldPosition), getRowOfOffset(oldPosition));
+        repaintRows(getRowOfOffset(pos), getRowOfOffset(pos));
     }
 
-    public void setText(Text newText) {
+    // Shows another text, highlighted with the given grammar (null for none)
+    public void setText(Text newText, Tokenizer newTokenizer) {
         this.text = newText;
+        this.textLength = newText.getLength();
+        if (wrap != null) wrap = new WrapIndex(newText, this, wrapWidth());
+        setTokenizer(newTokenizer);
+        markDirty(0, Integer.MAX_VALUE);
+        updateScrollRange();
+        repaint();
+    }
+
+    public void setWordWrap(boolean enabled) {
+        if (enabled == (wrap != null)) return;
+        int topOffset = rowStart(getTopRow());
+        wrap = enabled ? new WrapIndex(text, this, wrapWidth()) : null;
+        markDirty(0, Integer.MAX_VALUE);
+        updateScrollRange();
+        scrollBar.setValue(getRowOfOffset(topOffset) * lineHeight);
+        repaint();
+    }
+
+    public boolean isWordWrap() {
+        return wrap != null;
+    }
+
+    public void setTokenizer(Tokenizer newTokenizer) {
+        if (highlighter != null) highlighter.dispose();
+        tokenizer = newTokenizer;
+        highlighter = newTokenizer != null ? new Highlighter(text, newTokenizer, this::linesChanged) : null;
+        markDirty(0, Integer.MAX_VALUE);
+        repaint();
     }
 
     public void setSelection(int start, int end) {
+        if (start == selectionStart && end == selectionEnd) return;
+        int from = Integer.MAX_VALUE, to = -1;
+        if (selectionStart >= 0) {
+            from = selectionStart;
+            to = selectionEnd;
+        }
+        if (start >= 0) {
+            from = Math.min(from, start);
+            to = Math.max(to, end);
+        }
         this.selectionStart = start;
         this.selectionEnd = end;
+        if (to >= 0) rangeChanged(from, to);
+    }
+
+    // Re-renders the rows covering [start, end] after their styling or selection changed
+    public void rangeChanged(int start, int end) {
+        int first = getRowOfOffset(start), last = getRowOfOffset(end);
+        markDirty(first, last);
+        repaintRows(first, last);
+    }
+
+    // Re-renders [start, end] after its fonts changed. In wrap mode the rows are re-wrapped
+    // first, and when that changes their number everything below is re-rendered too.
+    public void stylesChanged(int start, int end) {
+        if (wrap == null) {
+            rangeChanged(start, end);
+            return;
+        }
+        int oldRowCount = wrap.getRowCount();
+        int[] rows = wrap.restyle(start, end);
+        if (wrap.getRowCount() == oldRowCount) {
+            markDirty(rows[0], rows[1]);
+            repaintRows(rows[0], rows[1]);
+        } else {
+            markDirty(rows[0], Integer.MAX_VALUE);
+            updateScrollRange();
+            repaintRows(rows[0], Integer.MAX_VALUE);
+        }
+    }
+
+    // Re-renders the rows touched by an edit at pos; when the edit added or removed
+    // rows everything below it moves, so the rest of the view is re-rendered as well
+    public void textChanged(int pos, int oldLineCount) {
+        int delta = text.getLength() - textLength;
+        textLength = text.getLength();
+        if (wrap != null) {
+            int oldRowCount = wrap.getRowCount();
+            int[] rows = wrap.edit(pos, delta);
+            if (wrap.getRowCount() == oldRowCount) {
+                markDirty(rows[0], rows[1]);
+                repaintRows(rows[0], rows[1]);
+            } else {
+                markDirty(rows[0], Integer.MAX_VALUE);
+                updateScrollRange();
+                repaintRows(rows[0], Integer.MAX_VALUE);
+            }
+        } else if (text.getLineCount() == oldLineCount) {
+            rangeChanged(pos, pos);
+        } else {
+            int first = getRowOfOffset(pos);
+            markDirty(first, Integer.MAX_VALUE);
+            updateScrollRange();
+            repaintRows(first, Integer.MAX_VALUE);
+        }
+
+        if (highlighter != null) {
+            // Re-lexing can recolor lines below the edit, e.g. after typing "/*"
+            int editLine = text.getLineOfOffset(Math.min(pos, text.getLength()));
+            linesChanged(editLine, highlighter.textChanged(editLine, oldLineCount));
+        }
+    }
+
+    // Re-renders the visible rows of lines first..last, e.g. after their highlighting changed
+    private void linesChanged(int first, int last) {
+        int topRow = getTopRow();
+        int bottomRow = Math.min(topRow + visibleRows(), rowCount()) - 1;
+        if (bottomRow < topRow) return;
+        first = Math.max(first, text.getLineOfOffset(rowStart(topRow)));
+        last = Math.min(last, text.getLineOfOffset(rowEnd(bottomRow)));
+        if (first > last) return;
+        rangeChanged(text.getLineStart(first), text.getLineEnd(last));
+    }
+
+    // Row (text line, or visual line in wrap mode) showing the given offset
+    public int getRowOfOffset(int pos) {
+        pos = Math.max(0, Math.min(pos, text.getLength()));
+        return wrap != null ? wrap.rowOfOffset(pos) : text.getLineOfOffset(pos);
+    }
+
+    // Text offset under the given point, used for mouse clicks
+    public int getOffsetAt(int x, int y) {
+        int row = getTopRow() + y / lineHeight;
+        if (row >= rowCount()) return text.getLength();
+        int width = margin;
+        int pos = rowStart(row);
+        int end = rowEnd(row);
+        while (pos < end) {
+            Text.StyledChar sc = text.getStyledChar(pos);
+            int charWidth = getFontMetrics(sc.font).charWidth(sc.character);
+            if (width + charWidth / 2 >= x) break;
+            width += charWidth;
+            pos++;
+        }
+        return pos;
     }
 
     @Override
     public Dimension getPreferredSize() {
-        return new Dimension(600, text.getLineCount() * lineHeight + 20);
+        return new Dimension(600, rowCount() * lineHeight + 20);
     }
 
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        int topLine = scrollBar.getValue() / lineHeight;
-        int lineCount = getHeight() / lineHeight;
-
-        int pos = 0;
-        int y = margin;
-
-        for (int lineIdx = topLine; lineIdx < topLine + lineCount && lineIdx < text.getLineCount(); lineIdx++) {
-            List<Text.StyledChar> line = text.getLine(lineIdx);
-            int x = margin;
-
-            for (int i = 0; i < line.size(); i++) {
-                Text.StyledChar sc = line.get(i);
-                g.setFont(sc.font);
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        // The buffer has device pixels, so text stays sharp on scaled (HiDPI) displays
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        double scaleX = gc != null ? gc.getDefaultTransform().getScaleX() : 1;
+        double scaleY = gc != null ? gc.getDefaultTransform().getScaleY() : 1;
+        int bufferWidth = (int) Math.ceil(width * scaleX);
+        int bufferHeight = (int) Math.ceil(height * scaleY);
+        if (buffer == null || buffer.getWidth() != bufferWidth || buffer.getHeight() != bufferHeight) {
+            buffer = gc != null
+                    ? gc.createCompatibleImage(bufferWidth, bufferHeight)
+                    : new BufferedImage(bufferWidth, bufferHeight, BufferedImage.TYPE_INT_RGB);
+            markDirty(0, Integer.MAX_VALUE);
+        }
 
-                int globalPos = pos + i;
+        int caretRow = getRowOfOffset(caretPosition);
+        int topRow = getTopRow();
+        int rows = visibleRows();
+        takeShiftedRows();
 
-                if (selectionStart >= 0 && globalPos >= selectionStart && globalPos < selectionEnd) {
-                    FontMetrics fm = g.getFontMetrics(sc.font);
-                    int charWidth = fm.charWidth(sc.character);
-                    g.setColor(new Color(180, 200, 255)); // highlight
-                    g.fillRect(x, y - lineHeight + 5, charWidth, lineHeight);
-                    g.setColor(Color.BLACK);
+        Graphics2D bg = buffer.createGraphics();
+        try {
+            int shift = topRow - bufferTopRow;
+            double rowPixels = lineHeight * scaleY;
+            if (shift != 0) {
+                if (Math.abs(shift) < rows && rowPixels == Math.rint(rowPixels)) {
+                    // Blit the rows that stay visible and render only the newly exposed ones.
+                    // One extra row is refreshed because the partially visible edge row was
+                    // never fully rendered into the buffer. The copy is done in device pixels,
+                    // so it is only used when a row is a whole number of them.
+                    bg.copyArea(0, 0, bufferWidth, bufferHeight, 0, (int) (-shift * rowPixels));
+                    if (shift > 0) markDirty(topRow + rows - shift - 1, topRow + rows - 1);
+                    else markDirty(topRow, topRow - shift);
+                } else {
+                    markDirty(0, Integer.MAX_VALUE);
                 }
-
-                g.drawString(String.valueOf(sc.character), x, y);
-                x += g.getFontMetrics(sc.font).charWidth(sc.character);
+                bufferTopRow = topRow;
             }
 
-            pos += line.size() + 1;
-            y += lineHeight;
+            bg.scale(scaleX, scaleY);
+            for (int row = Math.max(dirtyFrom, topRow); row < topRow + rows; row++) {
+                if (row >= dirtyFrom && row <= dirtyTo) renderRow(bg, row, row - topRow, width);
+                // Wrapping a segment for this row may have moved the rows below it
+                takeShiftedRows();
+            }
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
+        } finally {
+            bg.dispose();
         }
 
+        g.drawImage(buffer, 0, 0, width, height, null);
+
         // Draw caret
         if (caretPosition >= 0 && caretPosition <= text.getLength()) {
-            int caretLine = 0, caretOffset = caretPosition;
             int caretX = margin;
-            int caretY = margin;
-
-            int index = 0;
-            while (index < caretPosition && caretLine < text.getLineCount()) {
-                List<Text.StyledChar> line = text.getLine(caretLine);
-                int lineLen = line.size() + 1;
-                if (caretOffset < lineLen) break;
-                caretOffset -= lineLen;
-                caretLine++;
-                index += lineLen;
+            for (int i = rowStart(caretRow); i < caretPosition; i++) {
+                Text.StyledChar sc = text.getStyledChar(i);
+                caretX += g.getFontMetrics(sc.font).charWidth(sc.character);
             }
 
-            if (caretLine < text.getLineCount()) {
-                List<Text.StyledChar> line = text.getLine(caretLine);
-                for (int i = 0; i < caretOffset && i < line.size(); i++) {
-                    Text.StyledChar sc = line.get(i);
-                    caretX += g.getFontMetrics(sc.font).charWidth(sc.character);
-                }
+            int caretY = (caretRow - topRow + 1) * lineHeight;
+            g.setColor(Color.BLACK);
+            g.drawLine(caretX, caretY - lineHeight + 5, caretX, caretY - 5);
+        }
+    }
 
-                caretY = (caretLine - topLine + 1) * lineHeight;
-                g.setColor(Color.BLACK);
-                g.drawLine(caretX, caretY - lineHeight + 5, caretX, caretY - 5);
+    // Clears the strip of one row in the buffer and draws its characters
+    private void renderRow(Graphics2D g, int row, int screenRow, int width) {
+        int top = rowTop(screenRow);
+        g.setClip(0, top, width, lineHeight);
+        g.setColor(getBackground());
+        g.fillRect(0, top, width, lineHeight);
+        if (row >= rowCount()) return;
+
+        int x = margin;
+        int y = margin + screenRow * lineHeight;
+        int start = rowStart(row);
+        int end = rowEnd(row);
+        int line = text.getLineOfOffset(start);
+        int lineStart = text.getLineStart(line);
+        TokenType[] types = highlighter != null ? highlighter.getTokenTypes(line) : null;
+        for (int pos = start; pos < end && x < width; pos++) {
+            Text.StyledChar sc = text.getStyledChar(pos);
+            FontMetrics fm = g.getFontMetrics(sc.font);
+            int charWidth = fm.charWidth(sc.character);
+
+            if (selectionStart >= 0 && pos >= selectionStart && pos < selectionEnd) {
+                g.setColor(new Color(180, 200, 255)); // highlight
+                g.fillRect(x, top, charWidth, lineHeight);
             }
+
+            Color color = types != null ? types[pos - lineStart].color : null;
+            g.setColor(color != null ? color : getForeground());
+            g.setFont(sc.font);
+            g.drawString(String.valueOf(sc.character), x, y);
+            x += charWidth;
         }
     }
+
+    private int rowCount() {
+        return wrap != null ? wrap.getRowCount() : text.getLineCount();
+    }
+
+    private int rowStart(int row) {
+        return wrap != null ? wrap.rowStart(row) : text.getLineStart(Math.min(row, text.getLineCount() - 1));
+    }
+
+    private int rowEnd(int row) {
+        return wrap != null ? wrap.rowEnd(row) : text.getLineEnd(Math.min(row, text.getLineCount() - 1));
+    }
+
+    private int getTopRow() {
+        return scrollBar.getValue() / lineHeight;
+    }
+
+    private void takeShiftedRows() {
+        int shifted = wrap != null ? wrap.takeShiftedRow() : Integer.MAX_VALUE;
+        if (shifted != Integer.MAX_VALUE) markDirty(shifted, Integer.MAX_VALUE);
+    }
+
+    private void markDirty(int from, int to) {
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+
+    // Schedules a repaint of only the on-screen strips of rows first..last
+    private void repaintRows(int first, int last) {
+        int topRow = getTopRow();
+        int firstRow = Math.max(0, first - topRow);
+        int lastRow = (int) Math.min((long) visibleRows() - 1, (long) last - topRow);
+        if (lastRow < firstRow) return;
+        int top = rowTop(firstRow);
+        repaint(0, top, getWidth(), (lastRow - firstRow + 1) * lineHeight);
+    }
+
+    private void updateScrollRange() {
+        int visible = Math.max(lineHeight, getHeight());
+        int max = Math.max(visible, rowCount() * lineHeight + 2 * margin);
+        scrollBar.setValues(Math.min(scrollBar.getValue(), max - visible), visible, 0, max);
+        scrollBar.setUnitIncrement(lineHeight);
+        scrollBar.setBlockIncrement(Math.max(lineHeight, visible - lineHeight));
+    }
+
+    private int wrapWidth() {
+        int width = getWidth() > 0 ? getWidth() : 600;
+        return width - 2 * margin;
+    }
+
+    // Top edge of a row strip; baselines sit at margin + row * lineHeight
+    private int rowTop(int row) {
+        return margin + row * lineHeight - lineHeight + 5;
+    }
+
+    private int visibleRows() {
+        return (getHeight() - rowTop(0) + lineHeight - 1) / lineHeight;
+    }
 }
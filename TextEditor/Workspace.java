@@ -0,0 +1,148 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// The open documents, one tab each above the shared Viewer. The font pool, the clipboard and
+// the highlighter and follower threads are static, so all documents share them.
+// The texts together are kept under a heap budget: when it would be exceeded, the least
+// recently used inactive documents are written to compressed snapshots on disk and dropped
+// from memory, and read back when their tab is selected again.
+public class Workspace {
+    // Heap all texts may use together, in MB (-Deditor.memoryBudget=...); half the heap by default
+    private static final long MEMORY_BUDGET = Long.getLong("editor.memoryBudget",
+            Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024)) * 1024 * 1024;
+
+    private final List<Document> documents = new ArrayList<>();
+    private final JTabbedPane tabs = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+    private final Consumer<Document> activated;
+    private Document active;
+    private long useCounter = 0;
+    private Path snapshotDir;
+
+    // activated is called whenever another document becomes the active one
+    public Workspace(Consumer<Document> activated) {
+        this.activated = activated;
+        tabs.setFocusable(false); // typed keys must keep going to the frame
+        tabs.addChangeListener(e -> {
+            int index = tabs.getSelectedIndex();
+            if (index >= 0 && documents.get(index) != active) activate(documents.get(index));
+        });
+    }
+
+    public JTabbedPane getTabs() {
+        return tabs;
+    }
+
+    // Opens the file in a new tab, or selects its tab when it is open already
+    public void open(String path) {
+        for (int i = 0; i < documents.size(); i++) {
+            if (documents.get(i).path.equals(path)) {
+                tabs.setSelectedIndex(i);
+                return;
+            }
+        }
+        // Make room first, so the new text is never read while the evicted ones are still held
+        trim(new File(path).length() * Text.BYTES_PER_CHAR);
+        add(new Document(path, new Text(path)));
+    }
+
+    public void add(Document document) {
+        documents.add(document);
+        tabs.addTab(document.getName(), null, null, document.path);
+        tabs.setSelectedIndex(documents.size() - 1);
+    }
+
+    public void close(Document document) {
+        int index = documents.indexOf(document);
+        if (index < 0 || documents.size() == 1) return; // the last document stays open
+        if (document.follower != null) {
+            document.follower.stop();
+            document.follower = null;
+        }
+        document.text.discardSnapshot();
+        documents.remove(index);
+        if (document == active) active = null;
+        tabs.removeTabAt(index); // selects and activates a neighbouring tab
+    }
+
+    private void activate(Document document) {
+        if (document.text.isEvicted()) {
+            trim(document.memory);
+            try {
+                document.text.restore();
+            } catch (IOException e) {
+                document = restoreFailed(document, e);
+                if (document == null) return;
+            }
+        }
+        active = document;
+        document.lastUsed = ++useCounter;
+        activated.accept(document);
+        trim(0);
+    }
+
+    // The snapshot of an evicted document could not be read back. The switch is refused and the
+    // snapshot kept; only when there is no document to go back to (the active one was closed)
+    // is the file reloaded from disk instead, without the edits that were in the snapshot.
+    private Document restoreFailed(Document document, IOException e) {
+        if (active != null) {
+            JOptionPane.showMessageDialog(tabs,
+                    "Error reading " + document.getName() + " back from its snapshot: " + e.getMessage(),
+                    "Open Error", JOptionPane.ERROR_MESSAGE);
+            tabs.setSelectedIndex(documents.indexOf(active));
+            return null;
+        }
+        JOptionPane.showMessageDialog(tabs,
+                "Error reading " + document.getName() + " back from its snapshot: " + e.getMessage()
+                        + "\nThe file was reloaded from disk; unsaved changes are lost.",
+                "Open Error", JOptionPane.ERROR_MESSAGE);
+        Document reloaded = new Document(document.path, new Text(document.path));
+        documents.set(documents.indexOf(document), reloaded);
+        return reloaded;
+    }
+
+    // Evicts inactive documents, least recently used first, until the texts in memory and
+    // the given number of bytes still to be loaded fit the budget
+    private void trim(long needed) {
+        long used = needed;
+        for (Document document : documents) used += document.text.estimatedMemory();
+        List<Document> failed = new ArrayList<>(); // not tried again in this pass
+        while (used > MEMORY_BUDGET) {
+            Document lru = null;
+            for (Document document : documents) {
+                if (document != active && document.follower == null && !document.text.isEvicted()
+                        && !failed.contains(document) && (lru == null || document.lastUsed < lru.lastUsed)) {
+                    lru = document;
+                }
+            }
+            if (lru == null) return; // only the active, followed and unwritable documents are left
+            long memory = lru.text.estimatedMemory();
+            if (evict(lru)) used -= memory;
+            else failed.add(lru);
+        }
+    }
+
+    private boolean evict(Document document) {
+        Path file = null;
+        try {
+            if (snapshotDir == null) {
+                snapshotDir = Files.createTempDirectory("editor-snapshots");
+                snapshotDir.toFile().deleteOnExit();
+            }
+            file = Files.createTempFile(snapshotDir, "snapshot", ".gz");
+            file.toFile().deleteOnExit();
+            document.memory = document.text.estimatedMemory();
+            document.text.evict(file);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot of " + document.path + ": " + e.getMessage());
+            if (file != null) file.toFile().delete();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.util.Arrays;
+
+// Visual line breaks for soft-wrap mode.
+// The text is cut into segments: every line is one segment, except that long lines are
+// cut into blocks of about BLOCK characters so that even a huge single-line file can be
+// wrapped piece by piece. Segments are wrapped lazily; until then their row count is estimated.
+// A block continues the row its predecessor ended with: wrapping a block moves its end from
+// the nominal cut to the next row break, where the following block then starts (and is
+// wrapped again if it already was). Blocks are wrapped in any order; until its predecessor
+// is wrapped, a block starts at its cut, so a resize never wraps a whole line at once.
+class WrapIndex {
+    private static final int BLOCK = 4096;
+    private static final int[] NO_BREAKS = new int[0];
+
+    private final Text text;
+    private final Component metrics;
+    private int width;
+    private int averageCharWidth;
+
+    // Segment i covers [start(i), end(i)); a newline may follow end(i). When the next
+    // segment starts at end(i) both are blocks of one line, and cut(i) is where that line
+    // was cut (end(i) is moved to a row break near it when wrapping).
+    private int[] segStart = new int[16];
+    private int[] segEnd = new int[16];
+    private int[] segCut = new int[16];
+    // Start offsets (relative to start(i)) of rows 2..n, or null if not wrapped yet
+    private int[][] breaks = new int[16][];
+    private int[] rows = new int[16];
+    private int segCount = 0;
+    // The offsets of segments from shiftFrom on are stored shift characters too low, so
+    // that an edit does not have to move all later segments. Edits move shiftFrom along,
+    // which only touches the segments between the old and the new edit position.
+    private int shiftFrom = 0;
+    private int shift = 0;
+
+    // Segments cut by appendSegments, before they are put in place
+    private int[] pieceStart = new int[16];
+    private int[] pieceEnd = new int[16];
+    private int[] pieceCut = new int[16];
+    private int pieceCount = 0;
+
+    // Fenwick tree over rows[], for row <-> segment lookups
+    private int[] tree = new int[17];
+    private int rowCount = 0;
+    private int textLength;
+    // First row whose position moved because an estimated segment got wrapped
+    private int shiftedRow = Integer.MAX_VALUE;
+
+    WrapIndex(Text text, Component metrics, int width) {
+        this.text = text;
+        this.metrics = metrics;
+        this.averageCharWidth = Math.max(1, metrics.getFontMetrics(Text.DEFAULT_FONT).charWidth('m'));
+        this.width = Math.max(1, width);
+        textLength = text.getLength();
+        appendSegments(0, textLength, true);
+        splice(0, 0);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // Returns the first row moved by lazy wrapping since the last call, or Integer.MAX_VALUE
+    public int takeShiftedRow() {
+        int row = shiftedRow;
+        shiftedRow = Integer.MAX_VALUE;
+        return row;
+    }
+
+    // Drops all computed breaks; rows are re-wrapped lazily as they are displayed
+    public void setWidth(int newWidth) {
+        newWidth = Math.max(1, newWidth);
+        if (newWidth == width) return;
+        width = newWidth;
+        moveShift(segCount);
+        for (int s = 0; s < segCount; s++) {
+            breaks[s] = null;
+            if (continues(s)) {
+                // The row breaks the blocks were moved to belong to the old width
+                segEnd[s] = segCut[s];
+                segStart[s + 1] = segCut[s];
+            }
+            rows[s] = estimateRows(segEnd[s] - segStart[s]);
+        }
+        rebuildTree(0);
+    }
+
+    // Updates the segments after delta characters were inserted (delta > 0) or deleted
+    // (delta < 0) at pos. Returns the first and last row of the re-segmented range.
+    public int[] edit(int pos, int delta) {
+        int first = segmentAt(pos);
+        int last = delta < 0 ? segmentAt(pos - delta) : first;
+        // Neighbouring blocks of the same line are cut again with the edited ones, so that
+        // an edit never leaves a tiny block behind
+        if (first > 0 && continues(first - 1)) first--;
+        if (continues(last)) last++;
+        int from = start(first);
+        int to = end(last) + delta;
+
+        // Segments after the edited range keep their breaks; they only move by delta, which
+        // is added to the shift instead of to each of them
+        moveShift(last + 1);
+        textLength += delta;
+        appendSegments(from, to, to == textLength || text.charAt(to) == '\n');
+        shift += delta;
+        int newLast = first + pieceCount - 1;
+        splice(first, last - first + 1);
+        newLast = Math.max(first, newLast);
+
+        // Reflow the edited paragraph right away unless it is a huge paste
+        for (int s = first; s <= newLast && s < first + 4; s++) {
+            wrap(s);
+        }
+        return new int[]{rowOfSegment(first), rowOfSegment(newLast) + rows[newLast] - 1};
+    }
+
+    // Re-wraps the segments covering [start, end) after their fonts changed, since character
+    // widths decide where rows break. Returns the first and last row of those segments.
+    public int[] restyle(int start, int end) {
+        int first = segmentAt(start);
+        int last = segmentAt(Math.max(start, end - 1));
+        for (int s = first; s <= last; s++) {
+            if (breaks[s] == null) continue; // still estimated; wrapped with the new fonts when shown
+            breaks[s] = null;
+            wrap(s);
+        }
+        return new int[]{rowOfSegment(first), rowOfSegment(last) + rows[last] - 1};
+    }
+
+    public int rowStart(int row) {
+        int s = locate(row);
+        int k = Math.min(row - rowOfSegment(s), breaks[s].length); // rows may vanish while wrapping
+        return start(s) + (k == 0 ? 0 : breaks[s][k - 1]);
+    }
+
+    public int rowEnd(int row) {
+        int s = locate(row);
+        int k = Math.min(row - rowOfSegment(s), breaks[s].length);
+        return k < breaks[s].length ? start(s) + breaks[s][k] : end(s);
+    }
+
+    public int rowOfOffset(int pos) {
+        int s = segmentAt(pos);
+        while (breaks[s] == null) {
+            wrap(s);
+            s = segmentAt(pos); // wrapping s may have moved its end before pos
+        }
+        int k = 0;
+        int start = start(s);
+        while (k < breaks[s].length && start + breaks[s][k] <= pos) k++;
+        return rowOfSegment(s) + k;
+    }
+
+    // Segment showing the given row, wrapping segments on the way as needed
+    private int locate(int row) {
+        row = Math.max(0, Math.min(row, rowCount - 1));
+        while (true) {
+            int s = findSegment(row);
+            if (breaks[s] != null) return s;
+            wrap(s);
+        }
+    }
+
+    // Greedy word wrap of one segment using the same per-character widths the Viewer paints.
+    // A block followed by another one of the same line is wrapped on past its cut, up to the
+    // next row break, and ends there; the next block then starts with that row.
+    private void wrap(int s) {
+        if (breaks[s] != null) return;
+        int start = start(s), end = end(s);
+        boolean continued = continues(s);
+        int limit = continued ? end(s + 1) : end;
+        int cut = continued ? cut(s) : end;
+        int[] found = new int[4];
+        int n = 0;
+        int x = 0;
+        int rowStart = start;
+        int lastSpace = -1;
+        int boundary = -1;
+        for (int i = start; i < limit; i++) {
+            if (!continued && i >= end) break;
+            Text.StyledChar sc = text.getStyledChar(i);
+            FontMetrics fm = metrics.getFontMetrics(sc.font);
+            int w = fm.charWidth(sc.character);
+            if (x + w > width && i > rowStart) {
+                int breakAt = lastSpace > rowStart ? lastSpace + 1 : i;
+                if (continued && breakAt >= cut) {
+                    boundary = breakAt;
+                    break;
+                }
+                if (n == found.length) found = Arrays.copyOf(found, n * 2);
+                found[n++] = breakAt - start;
+                rowStart = breakAt;
+                lastSpace = -1;
+                x = 0;
+                for (int j = breakAt; j < i; j++) {
+                    Text.StyledChar c = text.getStyledChar(j);
+                    x += metrics.getFontMetrics(c.font).charWidth(c.character);
+                }
+            }
+            if (sc.character == ' ') lastSpace = i;
+            x += w;
+        }
+        if (continued) {
+            if (boundary < 0 && n > 0) {
+                // The rest of the next block fits on the last row: it starts with that row
+                boundary = start + found[--n];
+            }
+            if (boundary < 0) {
+                // The whole block fits on one row: keep the cut
+                boundary = cut > start && cut < limit ? cut : end;
+            }
+            if (boundary != end) {
+                setEnd(s, boundary);
+                setStart(s + 1, boundary);
+                breaks[s + 1] = null; // re-wrapped from its new start when shown
+            }
+        }
+
+        breaks[s] = n == 0 ? NO_BREAKS : Arrays.copyOf(found, n);
+        int delta = n + 1 - rows[s];
+        if (delta != 0) {
+            addRows(s, delta);
+            shiftedRow = Math.min(shiftedRow, rowOfSegment(s));
+        }
+    }
+
+    // True when the next segment is another block of the same line
+    private boolean continues(int s) {
+        return s + 1 < segCount && start(s + 1) == end(s);
+    }
+
+    private int start(int s) {
+        return s < shiftFrom ? segStart[s] : segStart[s] + shift;
+    }
+
+    private int end(int s) {
+        return s < shiftFrom ? segEnd[s] : segEnd[s] + shift;
+    }
+
+    private int cut(int s) {
+        return s < shiftFrom ? segCut[s] : segCut[s] + shift;
+    }
+
+    private void setStart(int s, int offset) {
+        segStart[s] = s < shiftFrom ? offset : offset - shift;
+    }
+
+    private void setEnd(int s, int offset) {
+        segEnd[s] = s < shiftFrom ? offset : offset - shift;
+    }
+
+    // Makes the segments before index the ones stored without the shift
+    private void moveShift(int index) {
+        if (shift == 0) {
+            shiftFrom = index;
+            return;
+        }
+        for (int s = shiftFrom; s < index; s++) {
+            segStart[s] += shift;
+            segEnd[s] += shift;
+            segCut[s] += shift;
+        }
+        for (int s = index; s < shiftFrom; s++) {
+            segStart[s] -= shift;
+            segEnd[s] -= shift;
+            segCut[s] -= shift;
+        }
+        shiftFrom = index;
+    }
+
+    // Cuts [from, to) into pieces at newlines; lines longer than BLOCK are cut into equal
+    // blocks of BLOCK / 2 to BLOCK characters
+    private void appendSegments(int from, int to, boolean endsLine) {
+        pieceCount = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            boolean lineEnd = i < to && text.charAt(i) == '\n';
+            if (!lineEnd && (i < to || (start == to && !endsLine))) continue;
+            int length = i - start;
+            int blocks = Math.max(1, (length + BLOCK - 1) / BLOCK);
+            for (int b = 1; b < blocks; b++) {
+                int cut = start + (int) ((long) length * b / blocks);
+                addPiece(start + (int) ((long) length * (b - 1) / blocks), cut, cut);
+            }
+            addPiece(start + (int) ((long) length * (blocks - 1) / blocks), i, i);
+            start = i + 1;
+        }
+    }
+
+    private void addPiece(int start, int end, int cut) {
+        if (pieceCount == pieceStart.length) {
+            pieceStart = Arrays.copyOf(pieceStart, pieceCount * 2);
+            pieceEnd = Arrays.copyOf(pieceEnd, pieceCount * 2);
+            pieceCut = Arrays.copyOf(pieceCut, pieceCount * 2);
+        }
+        pieceStart[pieceCount] = start;
+        pieceEnd[pieceCount] = end;
+        pieceCut[pieceCount] = cut;
+        pieceCount++;
+    }
+
+    // Replaces the segments first..first+count-1 by the pieces; the shift must start right
+    // after them. The later segments are only moved in the arrays when the count changes.
+    private void splice(int first, int count) {
+        int change = pieceCount - count;
+        if (change != 0) {
+            if (segCount + change > segStart.length) {
+                int capacity = Math.max(segStart.length * 2, segCount + change);
+                segStart = Arrays.copyOf(segStart, capacity);
+                segEnd = Arrays.copyOf(segEnd, capacity);
+                segCut = Arrays.copyOf(segCut, capacity);
+                breaks = Arrays.copyOf(breaks, capacity);
+                rows = Arrays.copyOf(rows, capacity);
+            }
+            int tail = segCount - first - count;
+            System.arraycopy(segStart, first + count, segStart, first + pieceCount, tail);
+            System.arraycopy(segEnd, first + count, segEnd, first + pieceCount, tail);
+            System.arraycopy(segCut, first + count, segCut, first + pieceCount, tail);
+            System.arraycopy(breaks, first + count, breaks, first + pieceCount, tail);
+            System.arraycopy(rows, first + count, rows, first + pieceCount, tail);
+            segCount += change;
+        }
+        shiftFrom = first + pieceCount;
+        for (int i = 0; i < pieceCount; i++) {
+            int s = first + i;
+            int segRows = estimateRows(pieceEnd[i] - pieceStart[i]);
+            if (change == 0) addRows(s, segRows - rows[s]);
+            segStart[s] = pieceStart[i];
+            segEnd[s] = pieceEnd[i];
+            segCut[s] = pieceCut[i];
+            breaks[s] = null;
+            rows[s] = segRows;
+        }
+        if (change != 0) rebuildTree(first);
+    }
+
+    private int estimateRows(int length) {
+        return Math.max(1, (int) (((long) length * averageCharWidth + width - 1) / width));
+    }
+
+    // Last segment starting at or before pos
+    private int segmentAt(int pos) {
+        int lo = 0, hi = segCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (start(mid) <= pos) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    // === Fenwick tree ===
+
+    // Recomputes the tree for segments from on; the entries before only cover earlier segments
+    private void rebuildTree(int from) {
+        if (tree.length < segCount + 1) tree = Arrays.copyOf(tree, segStart.length + 1);
+        rowCount = rowOfSegment(from);
+        for (int i = from + 1; i <= segCount; i++) {
+            tree[i] = rows[i - 1];
+            rowCount += rows[i - 1];
+        }
+        // Entries before from whose range ends in a rebuilt entry's range
+        for (int i = from; i > 0; i -= i & -i) {
+            int parent = i + (i & -i);
+            if (parent <= segCount) tree[parent] += tree[i];
+        }
+        for (int i = from + 1; i <= segCount; i++) {
+            int parent = i + (i & -i);
+            if (parent <= segCount) tree[parent] += tree[i];
+        }
+    }
+
+    private void addRows(int s, int delta) {
+        rows[s] += delta;
+        rowCount += delta;
+        for (int i = s + 1; i <= segCount; i += i & -i) tree[i] += delta;
+    }
+
+    // First row of segment s
+    private int rowOfSegment(int s) {
+        int sum = 0;
+        for (int i = s; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    // Segment whose rows contain the given row
+    private int findSegment(int row) {
+        int pos = 0;
+        int step = Integer.highestOneBit(Math.max(1, segCount));
+        for (; step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= segCount && tree[next] <= row) {
+                pos = next;
+                row -= tree[next];
+            }
+        }
+        return Math.min(pos, segCount - 1);
+    }
+}